@@ -0,0 +1,44 @@
+package ninja.egg82.core;
+
+public class SQLPollOptions {
+    private final int batchSize;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final long idleTimeoutMillis;
+
+    public SQLPollOptions() { this(500, 50L, 5000L); }
+
+    public SQLPollOptions(int batchSize, long minIntervalMillis, long maxIntervalMillis) { this(batchSize, minIntervalMillis, maxIntervalMillis, 60000L); }
+
+    /**
+     * idleTimeoutMillis is how long an async poller keeps its connection and prepared statement after the last poll that returned rows.
+     * 0 releases them after every poll that does not fill a batch, at the cost of a pool checkout and re-prepare on each poll.
+     */
+    public SQLPollOptions(int batchSize, long minIntervalMillis, long maxIntervalMillis, long idleTimeoutMillis) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be greater than zero.");
+        }
+        if (minIntervalMillis < 0L) {
+            throw new IllegalArgumentException("minIntervalMillis cannot be negative.");
+        }
+        if (maxIntervalMillis < minIntervalMillis) {
+            throw new IllegalArgumentException("maxIntervalMillis cannot be less than minIntervalMillis.");
+        }
+        if (idleTimeoutMillis < 0L) {
+            throw new IllegalArgumentException("idleTimeoutMillis cannot be negative.");
+        }
+
+        this.batchSize = batchSize;
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public int getBatchSize() { return batchSize; }
+
+    public long getMinIntervalMillis() { return minIntervalMillis; }
+
+    public long getMaxIntervalMillis() { return maxIntervalMillis; }
+
+    public long getIdleTimeoutMillis() { return idleTimeoutMillis; }
+}
@@ -1,12 +1,14 @@
 package ninja.egg82.sql;
 
 import ninja.egg82.core.SQLExecuteResult;
+import ninja.egg82.core.SQLPollOptions;
 import ninja.egg82.core.SQLQueryResult;
 
 import java.sql.SQLException;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 public class AsyncSQL {
     SQL sql;
@@ -83,4 +85,24 @@ public class AsyncSQL {
     public CompletableFuture<SQLExecuteResult[]> executeSeparately(String[] q, Object... params) {
         return CompletableFuture.supplyAsync(() -> sql.executeSeparately(q, params), sql.exec);
     }
+
+    /**
+     * Polls q for rows past the watermark column on the executor and passes each non-empty batch to the listener.
+     * Any params are bound first and the current watermark value last; see {@link SQL#poller(String, String, Object, SQLPollOptions, Object...)}.
+     */
+    public SQLPoller poll(String q, String watermarkColumn, Object initialWatermark, SQLPollOptions options, Consumer<SQLQueryResult> listener, Object... params) {
+        SQLPoller poller = sql.poller(q, watermarkColumn, initialWatermark, options, params);
+        poller.start(listener);
+        return poller;
+    }
+
+    /**
+     * Polls q for rows past the watermark columns on the executor and passes each non-empty batch to the listener.
+     * Any params are bound first and the current watermark values last; see {@link SQL#poller(String, String[], Object[], SQLPollOptions, Object...)}.
+     */
+    public SQLPoller poll(String q, String[] watermarkColumns, Object[] initialWatermark, SQLPollOptions options, Consumer<SQLQueryResult> listener, Object... params) {
+        SQLPoller poller = sql.poller(q, watermarkColumns, initialWatermark, options, params);
+        poller.start(listener);
+        return poller;
+    }
 }
@@ -8,18 +8,22 @@ import java.util.Properties;
 import ninja.egg82.core.NamedParameterCallableStatement;
 import ninja.egg82.core.NamedParameterStatement;
 import ninja.egg82.core.SQLExecuteResult;
+import ninja.egg82.core.SQLPollOptions;
 import ninja.egg82.core.SQLQueryResult;
 
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
 
 public class SQL implements AutoCloseable {
     HikariDataSource source;
     Executor exec;
     AsyncSQL asyncSql;
+    final Set<SQLPoller> pollers = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService scheduler = null;
 
     public SQL(HikariConfig config) {
         this(config, ForkJoinPool.commonPool());
@@ -44,6 +48,14 @@ public class SQL implements AutoCloseable {
     }
 
     public void close() {
+        for (SQLPoller poller : pollers) {
+            poller.close();
+        }
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdown();
+            }
+        }
         if(!exec.equals(ForkJoinPool.commonPool()) && exec instanceof ExecutorService) {
             ((ExecutorService)exec).shutdown();
         }
@@ -292,6 +304,39 @@ public class SQL implements AutoCloseable {
         }
     }
 
+    /**
+     * Creates a poller returning rows of q past the watermark column, which must be unique and ascending in q's ORDER BY.
+     * Any params are bound first and the current watermark value last, eg.
+     * "SELECT * FROM `events` WHERE `tenant` = ? AND `id` > ? ORDER BY `id`;"
+     * See {@link SQLPoller} for the caveats on concurrent writers. The poller must be closed, eg. with try-with-resources.
+     */
+    public SQLPoller poller(String q, String watermarkColumn, Object initialWatermark, SQLPollOptions options, Object... params) {
+        return poller(q, new String[] { watermarkColumn }, new Object[] { initialWatermark }, options, params);
+    }
+
+    /**
+     * Creates a poller returning rows of q past the watermark columns, which together must be unique and ascending in q's ORDER BY.
+     * Any params are bound first and the current watermark values last, in column order, eg.
+     * "SELECT * FROM `events` WHERE `tenant` = ? AND (`created`, `id`) > (?, ?) ORDER BY `created`, `id`;"
+     * See {@link SQLPoller} for the caveats on concurrent writers. The poller must be closed, eg. with try-with-resources.
+     */
+    public SQLPoller poller(String q, String[] watermarkColumns, Object[] initialWatermark, SQLPollOptions options, Object... params) {
+        SQLPoller poller = new SQLPoller(this, q, watermarkColumns, initialWatermark, options, params);
+        pollers.add(poller);
+        return poller;
+    }
+
+    synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "EasySQL-Poller");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+
     private SQLQueryResult query(PreparedStatement statement) {
         try {
             boolean hasResults = statement.execute();
@@ -0,0 +1,367 @@
+package ninja.egg82.sql;
+
+import ninja.egg82.core.SQLPollOptions;
+import ninja.egg82.core.SQLQueryResult;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Incrementally polls a query for rows past a watermark.
+ * The watermark is one or more columns that together are unique and ascending in the query's ORDER BY,
+ * eg. an auto-increment id, or a timestamp with the id as a tiebreaker.
+ * With concurrent writers, ids and timestamps are assigned before commit and may become visible out of order;
+ * a row committed after a higher watermark was already seen is never returned. Where that matters, poll with a lag,
+ * eg. "AND `created` < NOW() - INTERVAL 5 SECOND", longer than the longest writing transaction.
+ * Any params are bound first and the current watermark values last, in column order, eg.
+ * "SELECT * FROM `events` WHERE `tenant` = ? AND (`created`, `id`) > (?, ?) ORDER BY `created`, `id`;"
+ * A batch ending inside a run of rows sharing the same watermark is rejected with an IllegalStateException rather than
+ * skipping the remainder of the run.
+ * Async pollers keep one connection and prepared statement across polls, releasing them on error, on close, or once
+ * no rows have been returned for the options' idleTimeoutMillis. This pins one pool slot per active poller.
+ * Direct calls to poll() check out a connection and prepare the statement on each call.
+ */
+public class SQLPoller implements AutoCloseable {
+    final SQL sql;
+    final String q;
+    final String[] watermarkColumns;
+    final Object[] params;
+    final SQLPollOptions options;
+
+    private final Object lock = new Object();
+    private volatile Object[] watermark;
+    private volatile boolean closed = false;
+    private volatile boolean started = false;
+
+    private Connection connection = null;
+    private PreparedStatement statement = null;
+    private String[] columns = null;
+    private int[] watermarkIndices = null;
+    private long lastRowsNanos = 0L;
+
+    private volatile Future<?> task = null;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    SQLPoller(SQL sql, String q, String[] watermarkColumns, Object[] initialWatermark, SQLPollOptions options, Object... params) {
+        if (watermarkColumns == null || watermarkColumns.length == 0) {
+            throw new IllegalArgumentException("At least one watermark column is required.");
+        }
+        if (initialWatermark == null || initialWatermark.length != watermarkColumns.length) {
+            throw new IllegalArgumentException("initialWatermark must have one value per watermark column.");
+        }
+
+        this.sql = sql;
+        this.q = q;
+        this.watermarkColumns = watermarkColumns.clone();
+        this.watermark = initialWatermark.clone();
+        this.options = options != null ? options : new SQLPollOptions();
+        this.params = params != null ? params : new Object[0];
+    }
+
+    public Object[] getWatermark() { return watermark.clone(); }
+
+    public SQLPollOptions getOptions() { return options; }
+
+    public boolean isClosed() { return closed; }
+
+    /**
+     * Completes when the poller is closed, or exceptionally if the listener or query fails permanently.
+     * The watermark is not advanced past a batch the listener failed on, so getWatermark() can be used to resume.
+     */
+    public CompletableFuture<Void> getFuture() { return future; }
+
+    /**
+     * Fetches at most batchSize rows past the current watermark and advances the watermark to the last row returned.
+     * Cannot be used once the poller has been started by AsyncSQL.
+     */
+    public SQLQueryResult poll() {
+        if (started) {
+            throw new IllegalStateException("Poller is already polling asynchronously.");
+        }
+
+        synchronized (lock) {
+            Batch batch = fetch(false);
+            advance(batch);
+            return batch.result;
+        }
+    }
+
+    public void close() { close(null); }
+
+    private void close(Throwable ex) {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closeStatement();
+        }
+        Future<?> t = task;
+        if (t != null) {
+            t.cancel(false);
+        }
+        sql.pollers.remove(this);
+        if (ex != null) {
+            future.completeExceptionally(ex);
+        } else {
+            future.complete(null);
+        }
+    }
+
+    void start(Consumer<SQLQueryResult> listener) {
+        started = true;
+        schedule(listener, 0L);
+    }
+
+    private void schedule(Consumer<SQLQueryResult> listener, long delay) {
+        if (closed) {
+            return;
+        }
+
+        try {
+            task = sql.scheduler().schedule(() -> {
+                try {
+                    sql.exec.execute(() -> run(listener, delay));
+                } catch (Throwable ex) {
+                    close(ex);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            close(ex);
+            return;
+        }
+        if (closed) {
+            task.cancel(false);
+        }
+    }
+
+    private void run(Consumer<SQLQueryResult> listener, long delay) {
+        if (closed) {
+            return;
+        }
+
+        // Only one poll is in flight at a time; the next is not scheduled until the listener returns
+        Batch batch;
+        try {
+            batch = fetch(true);
+        } catch (Throwable ex) {
+            if (closed) {
+                return;
+            }
+            if (isTransient(ex)) {
+                // Connection will be re-opened on the next poll
+                schedule(listener, options.getMaxIntervalMillis());
+            } else {
+                close(ex);
+            }
+            return;
+        }
+        if (closed) {
+            // Closed while fetching; drop the batch
+            return;
+        }
+
+        int rows = batch.result.getData().length;
+        if (rows > 0) {
+            try {
+                listener.accept(batch.result);
+            } catch (Throwable ex) {
+                close(ex);
+                return;
+            }
+            advance(batch);
+        }
+
+        long nextDelay;
+        if (batch.more) {
+            nextDelay = 0L;
+        } else if (rows > 0) {
+            nextDelay = options.getMinIntervalMillis();
+        } else {
+            nextDelay = Math.max(Math.min(Math.max(delay * 2L, options.getMinIntervalMillis()), options.getMaxIntervalMillis()), 1L);
+        }
+        schedule(listener, nextDelay);
+    }
+
+    private static boolean isTransient(Throwable ex) {
+        if (!(ex instanceof RuntimeException) || !(ex.getCause() instanceof SQLException)) {
+            return false;
+        }
+
+        // Drivers may wrap the underlying exception, so the whole cause chain is checked
+        for (Throwable cause = ex.getCause(); cause instanceof SQLException; cause = cause.getCause()) {
+            SQLException e = (SQLException) cause;
+            if (e instanceof SQLTransientException
+                    || e instanceof SQLRecoverableException
+                    || e instanceof SQLNonTransientConnectionException
+                    || (e.getSQLState() != null && e.getSQLState().startsWith("08"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Batch fetch(boolean hold) {
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Poller is closed.");
+            }
+
+            try {
+                if (statement == null) {
+                    open();
+                    lastRowsNanos = System.nanoTime();
+                }
+
+                for (int i = 0; i < watermark.length; i++) {
+                    statement.setObject(params.length + i + 1, watermark[i]);
+                }
+                Batch batch = collectRows();
+                if (!sql.source.isAutoCommit()) {
+                    connection.commit();
+                }
+                long now = System.nanoTime();
+                if (batch.result.getData().length > 0) {
+                    lastRowsNanos = now;
+                }
+                if (!hold || (!batch.more && TimeUnit.NANOSECONDS.toMillis(now - lastRowsNanos) >= options.getIdleTimeoutMillis())) {
+                    closeStatement();
+                }
+                return batch;
+            } catch (SQLException e) {
+                closeStatement();
+                throw new RuntimeException(e);
+            } catch (RuntimeException e) {
+                closeStatement();
+                throw e;
+            }
+        }
+    }
+
+    private void advance(Batch batch) {
+        if (batch.watermark != null) {
+            watermark = batch.watermark;
+        }
+    }
+
+    private void open() throws SQLException {
+        int batchSize = options.getBatchSize();
+        // One extra row is read to tell whether more rows are pending
+        int maxRows = batchSize < Integer.MAX_VALUE ? batchSize + 1 : 0;
+
+        connection = sql.source.getConnection();
+        try {
+            statement = connection.prepareStatement(q, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setMaxRows(maxRows);
+            statement.setFetchSize(maxRows);
+            for (int i = 0; i < params.length; i++) {
+                statement.setObject(i + 1, params[i]);
+            }
+        } catch (SQLException e) {
+            closeStatement();
+            throw e;
+        }
+    }
+
+    private Batch collectRows() throws SQLException {
+        try (ResultSet results = statement.executeQuery()) {
+            if (columns == null) {
+                resolveColumns(results.getMetaData());
+            }
+
+            int batchSize = options.getBatchSize();
+            List<Object[]> rows = new ArrayList<>(Math.min(batchSize, 64));
+            while (rows.size() < batchSize && results.next()) {
+                rows.add(readRow(results));
+            }
+
+            Object[] last = rows.isEmpty() ? null : getWatermark(rows.get(rows.size() - 1));
+            boolean more = !rows.isEmpty() && results.next();
+            if (more && watermarkEquals(last, readRow(results))) {
+                throw new IllegalStateException("Batch ended inside rows sharing the same watermark; add a unique tiebreaker watermark column.");
+            }
+
+            return new Batch(new SQLQueryResult(columns, rows.toArray(new Object[0][])), last, more);
+        }
+    }
+
+    private void resolveColumns(ResultSetMetaData meta) throws SQLException {
+        String[] c = new String[meta.getColumnCount()];
+        for (int i = 0; i < c.length; i++) {
+            c[i] = meta.getColumnName(i + 1);
+        }
+
+        int[] indices = new int[watermarkColumns.length];
+        for (int i = 0; i < watermarkColumns.length; i++) {
+            indices[i] = -1;
+            for (int j = 0; j < c.length; j++) {
+                if (watermarkColumns[i].equalsIgnoreCase(c[j]) || watermarkColumns[i].equalsIgnoreCase(meta.getColumnLabel(j + 1))) {
+                    indices[i] = j;
+                    break;
+                }
+            }
+            if (indices[i] == -1) {
+                throw new IllegalArgumentException("Watermark column \"" + watermarkColumns[i] + "\" not found in query results.");
+            }
+        }
+
+        columns = c;
+        watermarkIndices = indices;
+    }
+
+    private Object[] readRow(ResultSet results) throws SQLException {
+        Object[] tVals = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            tVals[i] = results.getObject(i + 1);
+        }
+        return tVals;
+    }
+
+    private Object[] getWatermark(Object[] row) {
+        Object[] retVal = new Object[watermarkIndices.length];
+        for (int i = 0; i < watermarkIndices.length; i++) {
+            retVal[i] = row[watermarkIndices[i]];
+        }
+        return retVal;
+    }
+
+    private boolean watermarkEquals(Object[] watermark, Object[] row) {
+        for (int i = 0; i < watermarkIndices.length; i++) {
+            if (!Objects.equals(watermark[i], row[watermarkIndices[i]])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void closeStatement() {
+        if (statement != null) {
+            try {
+                statement.close();
+            } catch (SQLException ignored) { }
+            statement = null;
+        }
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException ignored) { }
+            connection = null;
+        }
+    }
+
+    private static class Batch {
+        private final SQLQueryResult result;
+        private final Object[] watermark;
+        private final boolean more;
+
+        private Batch(SQLQueryResult result, Object[] watermark, boolean more) {
+            this.result = result;
+            this.watermark = watermark;
+            this.more = more;
+        }
+    }
+}
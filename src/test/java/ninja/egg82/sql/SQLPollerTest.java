@@ -0,0 +1,234 @@
+package ninja.egg82.sql;
+
+import com.zaxxer.hikari.HikariConfig;
+import ninja.egg82.core.SQLPollOptions;
+import ninja.egg82.core.SQLQueryResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SQLPollerTest {
+    private static final AtomicInteger DATABASE = new AtomicInteger();
+    private static final AtomicInteger FAILURES = new AtomicInteger();
+
+    private String url;
+    private SQL sql;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        url = "jdbc:h2:mem:poller" + DATABASE.incrementAndGet() + ";DB_CLOSE_DELAY=-1";
+        sql = new SQL(config());
+        update("CREATE TABLE `events` (`id` BIGINT AUTO_INCREMENT PRIMARY KEY, `tenant` INT NOT NULL, `created` BIGINT NOT NULL);");
+        update("CREATE ALIAS `AVAILABLE` FOR \"ninja.egg82.sql.SQLPollerTest.available\";");
+        FAILURES.set(0);
+    }
+
+    public static boolean available() throws SQLException {
+        if (FAILURES.getAndUpdate(i -> Math.max(i - 1, 0)) > 0) {
+            throw new SQLTransientException("Unavailable");
+        }
+        return true;
+    }
+
+    @AfterEach
+    void tearDown() {
+        sql.close();
+    }
+
+    @Test
+    void pollFullPartialAndEmptyBatches() throws SQLException {
+        insert(1, 5);
+
+        SQLPoller poller = sql.poller("SELECT * FROM `events` WHERE `id` > ? ORDER BY `id`;", "id", 0L, new SQLPollOptions(2, 0L, 0L));
+        assertEquals(2, poller.poll().getData().length);
+        assertEquals(2L, poller.getWatermark()[0]);
+        assertEquals(2, poller.poll().getData().length);
+        assertEquals(1, poller.poll().getData().length);
+        assertEquals(0, poller.poll().getData().length);
+        assertEquals(5L, poller.getWatermark()[0]);
+
+        insert(1, 1);
+        SQLQueryResult result = poller.poll();
+        assertEquals(1, result.getData().length);
+        assertEquals(6L, result.getData()[0][0]);
+        assertEquals(0, sql.getRawSource().getHikariPoolMXBean().getActiveConnections());
+    }
+
+    @Test
+    void pollBindsParamsBeforeWatermark() throws SQLException {
+        insert(1, 2);
+        insert(2, 2);
+
+        SQLPoller poller = sql.poller("SELECT * FROM `events` WHERE `tenant` = ? AND `id` > ? ORDER BY `id`;", "id", 0L, new SQLPollOptions(10, 0L, 0L), 2);
+        Object[][] rows = poller.poll().getData();
+        assertEquals(2, rows.length);
+        assertEquals(3L, rows[0][0]);
+        assertEquals(4L, rows[1][0]);
+    }
+
+    @Test
+    void compositeWatermarkKeepsTiedRows() throws SQLException {
+        for (int i = 0; i < 3; i++) {
+            update("INSERT INTO `events` (`tenant`, `created`) VALUES (?, ?);", 1, 100L);
+        }
+
+        SQLPoller poller = sql.poller("SELECT * FROM `events` WHERE (`created`, `id`) > (?, ?) ORDER BY `created`, `id`;", new String[] { "created", "id" }, new Object[] { 0L, 0L }, new SQLPollOptions(2, 0L, 0L));
+        assertEquals(2, poller.poll().getData().length);
+        assertEquals(1, poller.poll().getData().length);
+        assertEquals(0, poller.poll().getData().length);
+        assertArrayEquals(new Object[] { 100L, 3L }, poller.getWatermark());
+    }
+
+    @Test
+    void nonUniqueWatermarkRejected() throws SQLException {
+        for (int i = 0; i < 3; i++) {
+            update("INSERT INTO `events` (`tenant`, `created`) VALUES (?, ?);", 1, 100L);
+        }
+
+        SQLPoller poller = sql.poller("SELECT * FROM `events` WHERE `created` > ? ORDER BY `created`;", "created", 0L, new SQLPollOptions(2, 0L, 0L));
+        assertThrows(IllegalStateException.class, poller::poll);
+        assertEquals(0L, poller.getWatermark()[0]);
+    }
+
+    @Test
+    void asyncDeliversNewRows() throws InterruptedException, SQLException {
+        insert(1, 5);
+
+        BlockingQueue<Object[]> rows = new LinkedBlockingQueue<>();
+        SQLPoller poller = sql.async().poll("SELECT * FROM `events` WHERE `id` > ? ORDER BY `id`;", "id", 0L, new SQLPollOptions(2, 10L, 50L), result -> {
+            for (Object[] row : result.getData()) {
+                rows.add(row);
+            }
+        });
+
+        for (long i = 1L; i <= 5L; i++) {
+            assertEquals(i, rows.poll(5L, TimeUnit.SECONDS)[0]);
+        }
+
+        insert(1, 1);
+        assertEquals(6L, rows.poll(5L, TimeUnit.SECONDS)[0]);
+        assertFalse(poller.getFuture().isDone());
+    }
+
+    @Test
+    void asyncHoldsConnectionWhileIdle() throws InterruptedException {
+        sql.async().poll("SELECT * FROM `events` WHERE `id` > ? ORDER BY `id`;", "id", 0L, new SQLPollOptions(2, 10L, 20L), result -> { });
+
+        Thread.sleep(200L);
+        assertEquals(1, sql.getRawSource().getHikariPoolMXBean().getActiveConnections());
+    }
+
+    @Test
+    void emptyPollsBackOff() throws InterruptedException {
+        AtomicInteger polls = new AtomicInteger();
+        try (SQL countingSql = new SQL(config(), r -> {
+            polls.incrementAndGet();
+            ForkJoinPool.commonPool().execute(r);
+        })) {
+            countingSql.async().poll("SELECT * FROM `events` WHERE `id` > ? ORDER BY `id`;", "id", 0L, new SQLPollOptions(2, 0L, 100L), result -> { });
+            Thread.sleep(600L);
+        }
+
+        // 1, 2, 4, ... 64ms then 100ms between polls; a tight loop would poll thousands of times
+        assertTrue(polls.get() >= 3, "polls: " + polls.get());
+        assertTrue(polls.get() <= 30, "polls: " + polls.get());
+    }
+
+    @Test
+    void transientFailureRecovers() throws InterruptedException, SQLException {
+        insert(1, 4);
+
+        BlockingQueue<Object[]> rows = new LinkedBlockingQueue<>();
+        SQLPoller poller = sql.async().poll("SELECT * FROM `events` WHERE `id` > ? AND `AVAILABLE`() ORDER BY `id`;", "id", 0L, new SQLPollOptions(2, 10L, 50L), result -> {
+            for (Object[] row : result.getData()) {
+                rows.add(row);
+            }
+            FAILURES.set(1);
+        });
+
+        for (long i = 1L; i <= 4L; i++) {
+            assertEquals(i, rows.poll(5L, TimeUnit.SECONDS)[0]);
+        }
+        assertFalse(poller.getFuture().isDone());
+    }
+
+    @Test
+    void permanentFailureCompletesFuture() {
+        SQLPoller poller = sql.async().poll("SELECT * FROM `missing` WHERE `id` > ? ORDER BY `id`;", "id", 0L, new SQLPollOptions(2, 10L, 50L), result -> { });
+
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> poller.getFuture().get(5L, TimeUnit.SECONDS));
+        assertTrue(ex.getCause().getCause() instanceof SQLException);
+        assertTrue(poller.isClosed());
+    }
+
+    @Test
+    void pollRejectedOnceStarted() {
+        SQLPoller poller = sql.async().poll("SELECT * FROM `events` WHERE `id` > ? ORDER BY `id`;", "id", 0L, new SQLPollOptions(2, 10L, 50L), result -> { });
+        assertThrows(IllegalStateException.class, poller::poll);
+    }
+
+    @Test
+    void failingListenerStopsWithoutAdvancing() throws SQLException {
+        insert(1, 3);
+
+        SQLPoller poller = sql.async().poll("SELECT * FROM `events` WHERE `id` > ? ORDER BY `id`;", "id", 0L, new SQLPollOptions(2, 10L, 50L), result -> {
+            throw new RuntimeException(new SQLException("listener failure"));
+        });
+
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> poller.getFuture().get(5L, TimeUnit.SECONDS));
+        assertEquals("listener failure", ex.getCause().getCause().getMessage());
+        assertTrue(poller.isClosed());
+        assertEquals(0L, poller.getWatermark()[0]);
+    }
+
+    @Test
+    void closeStopsPollers() throws Exception {
+        SQLPoller poller = sql.async().poll("SELECT * FROM `events` WHERE `id` > ? ORDER BY `id`;", "id", 0L, new SQLPollOptions(2, 10L, 50L), result -> { });
+        SQLPoller syncPoller = sql.poller("SELECT * FROM `events` WHERE `id` > ? ORDER BY `id`;", "id", 0L, null);
+
+        sql.close();
+        poller.getFuture().get(5L, TimeUnit.SECONDS);
+        assertTrue(poller.isClosed());
+        assertTrue(syncPoller.isClosed());
+        assertThrows(IllegalStateException.class, syncPoller::poll);
+    }
+
+    @Test
+    void invalidOptionsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new SQLPollOptions(0, 0L, 0L));
+        assertThrows(IllegalArgumentException.class, () -> new SQLPollOptions(1, -1L, 0L));
+        assertThrows(IllegalArgumentException.class, () -> new SQLPollOptions(1, 10L, 5L));
+        assertThrows(IllegalArgumentException.class, () -> new SQLPollOptions(1, 0L, 0L, -1L));
+    }
+
+    private HikariConfig config() {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(url);
+        config.setMaximumPoolSize(2);
+        return config;
+    }
+
+    private void update(String q, Object... params) throws SQLException {
+        try (Connection connection = sql.getRawSource().getConnection(); PreparedStatement statement = connection.prepareStatement(q)) {
+            for (int i = 0; i < params.length; i++) {
+                statement.setObject(i + 1, params[i]);
+            }
+            statement.executeUpdate();
+        }
+    }
+
+    private void insert(int tenant, int count) throws SQLException {
+        for (int i = 0; i < count; i++) {
+            update("INSERT INTO `events` (`tenant`, `created`) VALUES (?, ?);", tenant, System.currentTimeMillis());
+        }
+    }
+}